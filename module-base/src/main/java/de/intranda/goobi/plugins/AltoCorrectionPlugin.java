@@ -1,31 +1,46 @@
 package de.intranda.goobi.plugins;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.XMLStreamException;
 
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.log4j.Logger;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.multipdf.Splitter;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.goobi.beans.Process;
+import org.goobi.beans.Processproperty;
 import org.goobi.production.enums.PluginGuiType;
 import org.goobi.production.plugin.interfaces.AbstractStepPlugin;
 import org.goobi.production.plugin.interfaces.IPlugin;
 import org.goobi.production.plugin.interfaces.IStepPlugin;
 
+import de.intranda.goobi.plugins.utils.AltoByteDeskewer;
 import de.intranda.goobi.plugins.utils.AltoDeskewer;
+import de.intranda.goobi.plugins.utils.AltoOutput;
+import de.intranda.goobi.plugins.utils.AltoOutput.Compression;
+import de.intranda.goobi.plugins.utils.ParallelIo;
+import de.intranda.goobi.plugins.utils.XmlEngine;
+import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.persistence.managers.PropertyManager;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 
 @PluginImplementation
@@ -49,68 +64,114 @@ public class AltoCorrectionPlugin extends AbstractStepPlugin implements IStepPlu
             String altoOutputFolder = process.getOcrAltoDirectory();
             String pdfOutputFolder = process.getOcrPdfDirectory();
 
-            List<Path> inputTifs = new ArrayList<>();
-            Path altoFile = null;
-            Path pdfInput = null;
-            try (DirectoryStream<Path> ds = Files.newDirectoryStream(Paths.get(inputFolder))) {
-                for (Path p : ds) {
-                    if (p.toString().toLowerCase().endsWith(".tif")) {
-                        inputTifs.add(p);
+            XMLConfiguration config = ConfigPlugins.getPluginConfig(PLUGIN_NAME);
+            Processproperty selectionProperty = getSelectionProperty(process, config);
+            try (ParallelIo io = new ParallelIo(config.getInt("io.maxConcurrent", 16))) {
+                List<Path> inputTifs = new ArrayList<>();
+                Path altoFile = null;
+                Path pdfInput = null;
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(Paths.get(inputFolder))) {
+                    for (Path p : ds) {
+                        if (p.toString().toLowerCase().endsWith(".tif")) {
+                            inputTifs.add(p);
+                        }
+                        if (p.toString().toLowerCase().endsWith(".xml")) {
+                            altoFile = p;
+                        }
+                        if (p.toString().toLowerCase().endsWith(".pdf")) {
+                            pdfInput = p;
+                        }
                     }
-                    if (p.toString().toLowerCase().endsWith(".xml")) {
-                        altoFile = p;
+                }
+                if (pdfInput == null || altoFile == null) {
+                    // if one exists, move it
+                    if (pdfInput != null) {
+                        moveToFolder(io, pdfInput, Paths.get(altoOutputFolder));
                     }
-                    if (p.toString().toLowerCase().endsWith(".pdf")) {
-                        pdfInput = p;
+                    if (altoFile != null) {
+                        moveToFolder(io, altoFile, Paths.get(pdfOutputFolder));
                     }
+                    io.await();
+                    Helper.setMeldung("Missing input data.");
+                    return true;
                 }
-            }
-            if (pdfInput == null || altoFile == null) {
-                if (pdfInput != null) {
-                    Path folder = Paths.get(altoOutputFolder);
-                    Path file = Paths.get(altoOutputFolder + "/" + pdfInput.toFile().getName());
-                    if (!Files.exists(folder)) {
-                        Files.createDirectories(folder);
+                // move to source folder
+
+                // the output folders are created while the PDF is loaded
+                Future<Path> altoFolder = io.createDirectories(Paths.get(altoOutputFolder));
+                Future<Path> pdfFolder = io.createDirectories(Paths.get(pdfOutputFolder));
+
+                Collections.sort(inputTifs);
+                Set<Integer> pageIndices = null;
+                Set<String> selection = selectionProperty == null ? Collections.emptySet() : getPages(selectionProperty.getWert());
+                if (!selection.isEmpty()) {
+                    try {
+                        pageIndices = getPageIndices(selection, inputTifs);
+                    } catch (IllegalArgumentException e) {
+                        Helper.setFehlerMeldung(e.getMessage());
+                        return false;
                     }
-                    Files.move(pdfInput, file, StandardCopyOption.REPLACE_EXISTING);
+                    logger.warn("Regenerating only the pages " + selection + " of process " + process.getTitel() + " as listed in the property "
+                            + selectionProperty.getTitel());
+                    Helper.setMeldung("Regenerating only the pages " + selection + ".");
                 }
-                if (altoFile != null) {
-                    Path folder = Paths.get(pdfOutputFolder);
-                    Path file = Paths.get(pdfOutputFolder + "/" + altoFile.toFile().getName());
-                    if (!Files.exists(folder)) {
-                        Files.createDirectories(folder);
-                    }
-                    Files.move(altoFile, file, StandardCopyOption.REPLACE_EXISTING);
+                int pageCount = pageIndices == null ? inputTifs.size() : pageIndices.size();
+
+                Compression compression;
+                try {
+                    compression = Compression.fromString(config.getString("altoOutput.compression", "none"));
+                } catch (IllegalArgumentException e) {
+                    Helper.setFehlerMeldung(e.getMessage());
+                    return false;
                 }
-                // if one exists, move it
-                Helper.setMeldung("Missing input data.");
-                return true;
-            }
-            // move to source folder
+                boolean compact = config.getBoolean("altoOutput.compact", false);
+                String container = config.getString("altoOutput.container", "");
 
-            File folder = new File(altoOutputFolder);
-            if (!folder.exists()) {
-                folder.mkdirs();
-            }
-            folder = new File(pdfOutputFolder);
-            if (!folder.exists()) {
-                folder.mkdirs();
-            }
+                try (PDDocument doc = Loader.loadPDF(pdfInput.toFile())) {
+                    io.get(altoFolder);
+                    io.get(pdfFolder);
 
-            Collections.sort(inputTifs);
-            PDDocument doc = Loader.loadPDF(pdfInput.toFile());
-            AltoDeskewer.deskewAlto(altoFile, inputTifs, doc, Paths.get(altoOutputFolder));
-            Splitter splitter = new Splitter();
-            List<PDDocument> splitList = splitter.split(doc);
-            int i = 0;
-            for (PDDocument sDoc : splitList) {
-                String tifName = inputTifs.get(i++).getFileName().toString();
-                String newName = tifName.substring(0, tifName.lastIndexOf('.')) + ".pdf";
-                sDoc.save(Paths.get(pdfOutputFolder, newName).toString());
-                sDoc.close();
-            }
+                    long start = System.currentTimeMillis();
+                    try (AltoOutput altoOutput = container.isEmpty() ? AltoOutput.toFolder(Paths.get(altoOutputFolder), io, compact, compression)
+                            : AltoOutput.toContainer(Paths.get(altoOutputFolder, container), compact, compression)) {
+                        XmlEngine xmlEngine = getXmlEngine(config);
+                        if ("bytes".equals(config.getString("engine", "stax"))) {
+                            AltoByteDeskewer.deskewAlto(altoFile, inputTifs, doc, altoOutput, xmlEngine, io, pageIndices);
+                        } else {
+                            AltoDeskewer.deskewAlto(altoFile, inputTifs, doc, altoOutput, xmlEngine, io, pageIndices);
+                        }
+                        altoOutput.commit();
+                    }
+                    long duration = Math.max(1, System.currentTimeMillis() - start);
+                    logger.debug("Deskewed " + pageCount + " ALTO pages in " + duration + " ms (" + (pageCount * 1000 / duration) + " pages/s)");
 
-            doc.close();
+                    // PDFBox is not thread safe, so the pages are serialised here and only written in the background
+                    Splitter splitter = new Splitter();
+                    if (pageIndices == null) {
+                        List<PDDocument> splitList = splitter.split(doc);
+                        int i = 0;
+                        for (PDDocument sDoc : splitList) {
+                            savePdfPage(io, sDoc, inputTifs.get(i++), pdfOutputFolder);
+                        }
+                    } else {
+                        for (int i : pageIndices) {
+                            if (i >= doc.getNumberOfPages()) {
+                                continue;
+                            }
+                            splitter.setStartPage(i + 1);
+                            splitter.setEndPage(i + 1);
+                            for (PDDocument sDoc : splitter.split(doc)) {
+                                savePdfPage(io, sDoc, inputTifs.get(i), pdfOutputFolder);
+                            }
+                        }
+                    }
+                }
+            }
+            if (selectionProperty != null) {
+                // the selection is only meant for this run, later runs process all pages again
+                process.getEigenschaften().remove(selectionProperty);
+                PropertyManager.deleteProcessProperty(selectionProperty);
+            }
         } catch (SwapException | IOException | XMLStreamException e) {
             logger.error(e);
             Helper.setFehlerMeldung(e);
@@ -120,6 +181,93 @@ public class AltoCorrectionPlugin extends AbstractStepPlugin implements IStepPlu
         return true;
     }
 
+    /**
+     * Returns the process property named in pageSelectionProperty, or null if the process has none.
+     */
+    private static Processproperty getSelectionProperty(Process process, XMLConfiguration config) {
+        String propertyName = config.getString("pageSelectionProperty", "AltoCorrectionPages");
+        for (Processproperty property : process.getEigenschaften()) {
+            if (propertyName.equals(property.getTitel())) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits the value of the page selection property, the pages are separated by commas or whitespace.
+     */
+    static Set<String> getPages(String value) {
+        Set<String> pages = new LinkedHashSet<>();
+        if (value != null) {
+            for (String page : value.split("[,\\s]+")) {
+                if (!page.isEmpty()) {
+                    pages.add(page);
+                }
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Resolves image basenames and page numbers starting with 1 to page indices starting with 0. A basename takes precedence over a page number.
+     * 
+     * @throws IllegalArgumentException if a page does not exist
+     */
+    static Set<Integer> getPageIndices(Set<String> pages, List<Path> inputTifs) {
+        Map<String, Integer> basenames = new HashMap<>();
+        for (int i = 0; i < inputTifs.size(); i++) {
+            String name = inputTifs.get(i).getFileName().toString();
+            basenames.put(name.substring(0, name.lastIndexOf('.')), i);
+        }
+        Set<Integer> pageIndices = new TreeSet<>();
+        for (String page : pages) {
+            Integer index = basenames.get(page);
+            if (index == null && page.matches("\\d{1,9}")) {
+                index = Integer.parseInt(page) - 1;
+            }
+            if (index == null || index < 0 || index >= inputTifs.size()) {
+                throw new IllegalArgumentException("Page " + page + " does not exist.");
+            }
+            pageIndices.add(index);
+        }
+        return pageIndices;
+    }
+
+    private static void savePdfPage(ParallelIo io, PDDocument page, Path tif, String pdfOutputFolder) throws IOException {
+        String tifName = tif.getFileName().toString();
+        String newName = tifName.substring(0, tifName.lastIndexOf('.')) + ".pdf";
+        try (OutputStream out = io.newOutputStream(Paths.get(pdfOutputFolder, newName))) {
+            page.save(out);
+        } finally {
+            page.close();
+        }
+    }
+
+    /**
+     * Moves a file into a folder in the background, creating the folder first if needed.
+     */
+    private static Future<Path> moveToFolder(ParallelIo io, Path file, Path folder) throws IOException {
+        io.get(io.createDirectories(folder));
+        return io.move(file, folder.resolve(file.getFileName()));
+    }
+
+    /**
+     * Returns the cached XmlEngine for the StAX implementation configured in the xml element of the plugin configuration.
+     */
+    private static XmlEngine getXmlEngine(XMLConfiguration config) {
+        Map<String, String> inputProperties = new HashMap<>();
+        for (HierarchicalConfiguration property : config.configurationsAt("xml.inputProperty")) {
+            inputProperties.put(property.getString("[@name]"), property.getString("[@value]"));
+        }
+        Map<String, String> outputProperties = new HashMap<>();
+        for (HierarchicalConfiguration property : config.configurationsAt("xml.outputProperty")) {
+            outputProperties.put(property.getString("[@name]"), property.getString("[@value]"));
+        }
+        return XmlEngine.getInstance(config.getString("xml.inputFactory", null), config.getString("xml.outputFactory", null), config.getBoolean(
+                "xml.coalescing", false), inputProperties, outputProperties);
+    }
+
     @Override
     public PluginGuiType getPluginGuiType() {
         return PluginGuiType.NONE;
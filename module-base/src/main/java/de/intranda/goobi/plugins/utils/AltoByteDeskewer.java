@@ -0,0 +1,452 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Splits and deskews an ALTO file like {@link AltoDeskewer}, but works directly on the bytes of the memory-mapped input instead of going through
+ * StAX. Only the HPOS, VPOS, WIDTH and HEIGHT values of the deskewed elements are replaced and missing String IDs are added, all other bytes are
+ * copied unchanged. The header of every page file is the part of the input in front of the first Page element, so unlike the StAX engine it
+ * keeps the complete Description and Styles.
+ *
+ * The scanner only needs the markup to be ASCII compatible, which holds for UTF-8 and the ISO-8859 encodings. Files in UTF-16 or larger than
+ * 2 GB are handed over to the StAX engine with the XmlEngine passed in.
+ */
+public class AltoByteDeskewer {
+
+    private static final Set<String> DESKEWED_ELEMENTS = Set.of("PrintSpace", "TextBlock", "TextLine", "String", "SP", "Illustration",
+            "ComposedBlock");
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer data;
+    private final int limit;
+    private final AltoOutput output;
+    private final byte[] copyBuffer = new byte[COPY_BUFFER_SIZE];
+
+    private String altoName;
+    private String layoutName;
+    private int headerEnd = -1;
+    // header and end of the document in compact output, created once per file
+    private byte[] compactHeader;
+    private byte[] compactFooter;
+
+    private AltoByteDeskewer(ByteBuffer data, AltoOutput output) {
+        this.data = data;
+        this.limit = data.limit();
+        this.output = output;
+    }
+
+    /**
+     * Deskews the ALTO file, reading the image headers concurrently with the given ParallelIo. Pages that are not selected are skipped without being
+     * parsed. In compact output the whitespace between elements is left out and the header is prepared only once. The page files are complete once
+     * the AltoOutput is closed and {@link ParallelIo#await()} returned.
+     * 
+     * @param engine StAX implementation for input the byte engine can not handle
+     * @param pageIndices indices of the pages to write, starting with 0, or null for all pages
+     */
+    public static void deskewAlto(Path altoFile, List<Path> inputTifs, PDDocument inputPdf, AltoOutput output, XmlEngine engine, ParallelIo io,
+            Set<Integer> pageIndices) throws IOException, XMLStreamException {
+        deskewAlto(altoFile, PageInformationProvider.prefetch(inputTifs, inputPdf, io, pageIndices), output, engine);
+    }
+
+    static void deskewAlto(Path altoFile, PageInformationProvider pageInformation, AltoOutput output, XmlEngine engine) throws IOException,
+    XMLStreamException {
+        try (FileChannel channel = FileChannel.open(altoFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                AltoDeskewer.deskewAlto(altoFile, pageInformation, output, engine);
+                return;
+            }
+            ByteBuffer data = channel.map(MapMode.READ_ONLY, 0, size);
+            if (isUtf16(data)) {
+                AltoDeskewer.deskewAlto(altoFile, pageInformation, output, engine);
+                return;
+            }
+            new AltoByteDeskewer(data, output).process(pageInformation);
+        }
+    }
+
+    private static boolean isUtf16(ByteBuffer data) {
+        if (data.limit() < 2) {
+            return false;
+        }
+        int first = data.get(0) & 0xFF;
+        int second = data.get(1) & 0xFF;
+        return (first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE) || first == 0 || second == 0;
+    }
+
+    private void process(PageInformationProvider pageInformation) throws IOException {
+        int pageCount = 0;
+        int lt = indexOf('<', 0);
+        while (lt >= 0) {
+            int end = markupEnd(lt);
+            if (isStartTag(lt)) {
+                String name = readName(lt + 1);
+                String localName = localName(name);
+                if (localName.equals("alto")) {
+                    altoName = name;
+                } else if (localName.equals("Layout")) {
+                    layoutName = name;
+                } else if (localName.equals("Page") && layoutName != null) {
+                    if (headerEnd < 0) {
+                        headerEnd = lt;
+                        if (output.isCompact()) {
+                            ByteArrayOutputStream header = new ByteArrayOutputStream();
+                            copyCompact(0, headerEnd, header);
+                            compactHeader = header.toByteArray();
+                            compactFooter = ("</" + layoutName + "></" + altoName + ">").getBytes(StandardCharsets.US_ASCII);
+                        }
+                    }
+                    ImageInformation info = pageInformation.getInformation(pageCount);
+                    if (info != null) {
+                        end = writePage(lt, end, info);
+                    } else if (!isSelfClosing(end)) {
+                        end = skipPage(end);
+                    }
+                    pageCount++;
+                }
+            }
+            lt = indexOf('<', end);
+        }
+    }
+
+    /**
+     * Writes the page starting at lt into its own file and returns the position behind the end tag of the page.
+     */
+    private int writePage(int lt, int tagEnd, ImageInformation info) throws IOException {
+        OutputStream out = output.newPageStream(info.getBasename());
+        boolean complete = false;
+        try {
+            if (output.isCompact()) {
+                out.write(compactHeader);
+            } else {
+                copy(0, headerEnd, out);
+            }
+
+            int copied = lt;
+            int end = tagEnd;
+            if (!isSelfClosing(tagEnd)) {
+                int current = indexOf('<', tagEnd);
+                while (true) {
+                    if (current < 0) {
+                        throw new IOException("Unexpected end of ALTO file, missing end of Page element.");
+                    }
+                    end = markupEnd(current);
+                    if (isStartTag(current)) {
+                        String localName = localName(readName(current + 1));
+                        if (DESKEWED_ELEMENTS.contains(localName)) {
+                            copyContent(copied, current, out);
+                            writeDeskewedTag(current, end, localName, info, out);
+                            copied = end;
+                        }
+                    } else if (data.get(current + 1) == '/' && localName(readName(current + 2)).equals("Page")) {
+                        break;
+                    }
+                    current = indexOf('<', end);
+                }
+            }
+            copyContent(copied, end, out);
+
+            if (output.isCompact()) {
+                out.write(compactFooter);
+            } else {
+                writeAscii("\n</" + layoutName + ">\n</" + altoName + ">\n", out);
+            }
+            complete = true;
+            return end;
+        } finally {
+            if (complete) {
+                out.close();
+            } else {
+                output.abortPage(out);
+            }
+        }
+    }
+
+    /**
+     * Returns the position behind the end tag of the page whose start tag ends at tagEnd. Only markup is looked at, nothing is parsed.
+     */
+    private int skipPage(int tagEnd) throws IOException {
+        int current = indexOf('<', tagEnd);
+        while (current >= 0) {
+            int end = markupEnd(current);
+            if (data.get(current + 1) == '/' && localName(readName(current + 2)).equals("Page")) {
+                return end;
+            }
+            current = indexOf('<', end);
+        }
+        throw new IOException("Unexpected end of ALTO file, missing end of Page element.");
+    }
+
+    private void writeDeskewedTag(int lt, int tagEnd, String localName, ImageInformation info, OutputStream out) throws IOException {
+        // value positions of HPOS, VPOS, WIDTH and HEIGHT, in the order of AltoDeskewer.deskewBox
+        int[] valueStart = { -1, -1, -1, -1 };
+        int[] valueEnd = new int[4];
+        boolean hasId = false;
+
+        int position = skipName(lt + 1);
+        int attributesEnd = position;
+        while (true) {
+            position = skipWhitespace(position);
+            byte b = data.get(position);
+            if (b == '/' || b == '>') {
+                break;
+            }
+            int nameStart = position;
+            position = skipName(position);
+            String attributeName = ascii(nameStart, position);
+            position = skipWhitespace(position);
+            if (data.get(position) != '=') {
+                throw new IOException("Malformed attribute " + attributeName + " at byte " + nameStart + " of ALTO file.");
+            }
+            position = skipWhitespace(position + 1);
+            byte quote = data.get(position);
+            int start = position + 1;
+            int end = indexOf(quote, start);
+            if ((quote != '"' && quote != '\'') || end < 0 || end >= tagEnd) {
+                throw new IOException("Malformed value of attribute " + attributeName + " at byte " + nameStart + " of ALTO file.");
+            }
+            int index = boxIndex(localName(attributeName));
+            if (index >= 0) {
+                valueStart[index] = start;
+                valueEnd[index] = end;
+            } else if (attributeName.equals("ID")) {
+                hasId = true;
+            }
+            position = end + 1;
+            attributesEnd = position;
+        }
+
+        int[] box = AltoDeskewer.deskewBox(value(valueStart[0], valueEnd[0]), value(valueStart[1], valueEnd[1]), value(valueStart[2],
+                valueEnd[2]), value(valueStart[3], valueEnd[3]), info);
+
+        // replace the values in the order they appear in the tag
+        int copied = lt;
+        while (true) {
+            int next = -1;
+            for (int j = 0; j < 4; j++) {
+                if (valueStart[j] >= copied && (next < 0 || valueStart[j] < valueStart[next])) {
+                    next = j;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            copy(copied, valueStart[next], out);
+            writeAscii(Integer.toString(box[next]), out);
+            copied = valueEnd[next];
+        }
+        if (localName.equals("String") && !hasId) {
+            copy(copied, attributesEnd, out);
+            writeAscii(" ID=\"" + AltoDeskewer.nextStringId() + "\"", out);
+            copied = attributesEnd;
+        }
+        copy(copied, tagEnd, out);
+    }
+
+    private static int boxIndex(String attributeName) {
+        switch (attributeName) {
+            case "HPOS":
+                return 0;
+            case "VPOS":
+                return 1;
+            case "WIDTH":
+                return 2;
+            case "HEIGHT":
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the position behind the markup (tag, comment, CDATA section, processing instruction or doctype) starting at lt.
+     */
+    private int markupEnd(int lt) throws IOException {
+        int end;
+        if (startsWith(lt, "<!--")) {
+            end = indexOf("-->", lt + 4);
+            return end < 0 ? unexpectedEnd(lt) : end + 3;
+        } else if (startsWith(lt, "<![CDATA[")) {
+            end = indexOf("]]>", lt + 9);
+            return end < 0 ? unexpectedEnd(lt) : end + 3;
+        } else if (startsWith(lt, "<?")) {
+            end = indexOf("?>", lt + 2);
+            return end < 0 ? unexpectedEnd(lt) : end + 2;
+        }
+        // tags and doctype, '>' inside quoted values or an internal subset does not end the markup
+        byte quote = 0;
+        int depth = 0;
+        for (int i = lt + 1; i < limit; i++) {
+            byte b = data.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '[') {
+                depth++;
+            } else if (b == ']') {
+                depth--;
+            } else if (b == '>' && depth <= 0) {
+                return i + 1;
+            }
+        }
+        return unexpectedEnd(lt);
+    }
+
+    private static int unexpectedEnd(int lt) throws IOException {
+        throw new IOException("Unexpected end of ALTO file in markup starting at byte " + lt + ".");
+    }
+
+    private boolean isStartTag(int lt) {
+        if (lt + 1 >= limit) {
+            return false;
+        }
+        byte b = data.get(lt + 1);
+        return b != '/' && b != '!' && b != '?';
+    }
+
+    private boolean isSelfClosing(int tagEnd) {
+        return data.get(tagEnd - 2) == '/';
+    }
+
+    private String readName(int start) {
+        return ascii(start, skipName(start));
+    }
+
+    private int skipName(int position) {
+        while (position < limit) {
+            byte b = data.get(position);
+            if (b == '>' || b == '/' || b == '=' || isWhitespace(b)) {
+                break;
+            }
+            position++;
+        }
+        return position;
+    }
+
+    private int skipWhitespace(int position) {
+        while (position < limit && isWhitespace(data.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static String localName(String name) {
+        return name.substring(name.indexOf(':') + 1);
+    }
+
+    private String value(int start, int end) {
+        return start < 0 ? null : ascii(start, end);
+    }
+
+    private String ascii(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        data.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean startsWith(int position, String prefix) {
+        if (position + prefix.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data.get(position + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int b, int from) {
+        for (int i = from; i < limit; i++) {
+            if (data.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(String pattern, int from) {
+        int i = indexOf(pattern.charAt(0), from);
+        while (i >= 0) {
+            if (startsWith(i, pattern)) {
+                return i;
+            }
+            i = indexOf(pattern.charAt(0), i + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Copies content between two markup boundaries, leaving out whitespace between elements in compact output.
+     */
+    private void copyContent(int from, int to, OutputStream out) throws IOException {
+        if (output.isCompact()) {
+            copyCompact(from, to, out);
+        } else {
+            copy(from, to, out);
+        }
+    }
+
+    private void copyCompact(int from, int to, OutputStream out) throws IOException {
+        int position = from;
+        while (position < to) {
+            int lt = indexOf('<', position);
+            if (lt < 0 || lt > to) {
+                lt = to;
+            }
+            if (!isWhitespaceOnly(position, lt)) {
+                copy(position, lt, out);
+            }
+            if (lt == to) {
+                break;
+            }
+            int end = markupEnd(lt);
+            copy(lt, end, out);
+            position = end;
+        }
+    }
+
+    private boolean isWhitespaceOnly(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(data.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void copy(int from, int to, OutputStream out) throws IOException {
+        while (from < to) {
+            int length = Math.min(to - from, copyBuffer.length);
+            data.get(from, copyBuffer, 0, length);
+            out.write(copyBuffer, 0, length);
+            from += length;
+        }
+    }
+
+    private static void writeAscii(String s, OutputStream out) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -1,23 +1,23 @@
 package de.intranda.goobi.plugins.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDDocumentCatalog;
 
 public class AltoDeskewer {
     private static String version;
@@ -38,14 +38,42 @@ public class AltoDeskewer {
 
     public static void deskewAlto(Path altoFile, List<Path> inputTifs, PDDocument inputPdf, Path outputFolder) throws IOException,
     XMLStreamException {
-        PDDocumentCatalog catalog = inputPdf.getDocumentCatalog();
+        deskewAlto(altoFile, PageInformationProvider.of(inputTifs, inputPdf), AltoOutput.toFolder(outputFolder, null), XmlEngine.getDefault());
+    }
 
-        InputStream in = Files.newInputStream(altoFile);
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLStreamReader parser = factory.createXMLStreamReader(in);
+    /**
+     * Deskews the ALTO file, reading the image headers concurrently with the given ParallelIo. The output of this engine has no whitespace between
+     * elements in any case. The page files are complete once the AltoOutput is closed and {@link ParallelIo#await()} returned.
+     * 
+     * @param pageIndices indices of the pages to write, starting with 0, or null for all pages
+     */
+    public static void deskewAlto(Path altoFile, List<Path> inputTifs, PDDocument inputPdf, AltoOutput output, XmlEngine engine, ParallelIo io,
+            Set<Integer> pageIndices) throws IOException, XMLStreamException {
+        deskewAlto(altoFile, PageInformationProvider.prefetch(inputTifs, inputPdf, io, pageIndices), output, engine);
+    }
 
-        XMLOutputFactory output = XMLOutputFactory.newInstance();
+    static void deskewAlto(Path altoFile, PageInformationProvider pageInformation, AltoOutput output, XmlEngine engine) throws IOException,
+    XMLStreamException {
+        resetHeader();
+
+        try (InputStream in = Files.newInputStream(altoFile)) {
+            XMLStreamReader parser = engine.createReader(in);
+            try {
+                deskewPages(parser, pageInformation, output, engine);
+            } finally {
+                parser.close();
+            }
+        }
+    }
+
+    private static void deskewPages(XMLStreamReader parser, PageInformationProvider pageInformation, AltoOutput output, XmlEngine engine)
+            throws IOException, XMLStreamException {
         XMLStreamWriter writer = null;
+        OutputStream pageOut = null;
+        // the header up to the Layout element and the end of the document are the same for all pages
+        byte[] header = null;
+        byte[] footer = null;
+        int depth = 0;
 
         ImageInformation currentInfo = null;
 
@@ -56,137 +84,164 @@ public class AltoDeskewer {
         boolean isSoftwareName = false;
         boolean isSoftwareVersion = false;
 
-        while (parser.hasNext()) {
-            //            System.out.println( "Event: " + parser.getEventType());
-
-            switch (parser.getEventType()) {
-                case XMLStreamConstants.START_DOCUMENT:
-                    version = parser.getVersion();
-                    encoding = parser.getEncoding();
-                    break;
-
-                case XMLStreamConstants.END_DOCUMENT:
-                    parser.close();
-                    break;
-
-                case XMLStreamConstants.NAMESPACE:
-                    break;
-
-                case XMLStreamConstants.START_ELEMENT:
-                    if (parser.getLocalName().equals("alto")) {
-                        altoNS = parser.getNamespaceURI();
-                        for (int j = 0; j < parser.getNamespaceCount(); j++) {
-                            namespaceList.add(new SimpleEntry<>(parser.getNamespacePrefix(j), parser.getNamespaceURI(j)));
+        try {
+            while (parser.hasNext()) {
+                //            System.out.println( "Event: " + parser.getEventType());
+
+                switch (parser.getEventType()) {
+                    case XMLStreamConstants.START_DOCUMENT:
+                        version = parser.getVersion();
+                        encoding = parser.getEncoding();
+                        break;
+
+                    case XMLStreamConstants.END_DOCUMENT:
+                        parser.close();
+                        break;
+
+                    case XMLStreamConstants.NAMESPACE:
+                        break;
+
+                    case XMLStreamConstants.START_ELEMENT:
+                        if (parser.getLocalName().equals("alto")) {
+                            altoNS = parser.getNamespaceURI();
+                            for (int j = 0; j < parser.getNamespaceCount(); j++) {
+                                namespaceList.add(new SimpleEntry<>(parser.getNamespacePrefix(j), parser.getNamespaceURI(j)));
+                            }
+                            schemaLocation = parser.getAttributeValue("http://www.w3.org/2001/XMLSchema-instance", "schemaLocation");
+                        } else if (parser.getLocalName().equals("Description")) {
+
+                        } else if (parser.getLocalName().equals("MeasurementUnit")) {
+                            isMeasurementUnit = true;
+                        } else if (parser.getLocalName().equals("OCRProcessing")) {
+                            ocrProcessing = parser.getAttributeValue(null, "ID");
+                        } else if (parser.getLocalName().equals("ocrProcessingStep")) {
+
+                        } else if (parser.getLocalName().equals("processingDateTime")) {
+                            isProcessingDateTime = true;
+                        } else if (parser.getLocalName().equals("processingSoftware")) {
+
+                        } else if (parser.getLocalName().equals("softwareCreator")) {
+                            isSoftwareCreator = true;
+                        } else if (parser.getLocalName().equals("softwareName")) {
+                            isSoftwareName = true;
+                        } else if (parser.getLocalName().equals("softwareVersion")) {
+                            isSoftwareVersion = true;
+                        } else if (parser.getLocalName().equals("Styles")) {
+
+                        } else if (parser.getLocalName().equals("ParagraphStyle")) {
+                            //TODO: safe in hashmap plus add to files later.
+                        } else if (parser.getLocalName().equals("Layout")) {
+
+                        } else if (parser.getLocalName().equals("Page")) {
+                            currentInfo = pageInformation.getInformation(pageCount);
+                            //                        System.out.println("processing " + currentInfo.getBasename());
+                            if (currentInfo == null) {
+                                // page is not selected
+                                pageCount++;
+                                skipElement(parser);
+                                break;
+                            }
+                            if (header == null) {
+                                byte[][] frame = serializeFrame(engine);
+                                header = frame[0];
+                                footer = frame[1];
+                            }
+
+                            pageOut = output.newPageStream(currentInfo.getBasename());
+                            pageOut.write(header);
+                            writer = engine.createWriter(pageOut, encoding);
+                            writer.setDefaultNamespace(altoNS);
+
+                            pageCount++;
+                            copyElement(parser, writer);
+                        } else if (parser.getLocalName().equals("PrintSpace")) {
+                            //                        currentInfo.addLargeSize(Float.parseFloat(parser.getAttributeValue(null, "WIDTH")), Float.parseFloat(parser
+                            //                                .getAttributeValue(null, "HEIGHT")));
+                            deskewElement(parser, writer, currentInfo);
+                        } else if (parser.getLocalName().equals("TextBlock")) {
+                            deskewElement(parser, writer, currentInfo);
+                        } else if (parser.getLocalName().equals("TextLine")) {
+                            deskewElement(parser, writer, currentInfo);
+                        } else if (parser.getLocalName().equals("String")) {
+                            deskewElement(parser, writer, currentInfo);
+                        } else if (parser.getLocalName().equals("SP")) {
+                            deskewElement(parser, writer, currentInfo);
+                        } else if (parser.getLocalName().equals("Illustration")) {
+                            deskewElement(parser, writer, currentInfo);
+                        } else if (parser.getLocalName().equals("ComposedBlock")) {
+                            deskewElement(parser, writer, currentInfo);
+                        } else if (writer != null) {
+                            copyElement(parser, writer);
                         }
-                        schemaLocation = parser.getAttributeValue("http://www.w3.org/2001/XMLSchema-instance", "schemaLocation");
-                    } else if (parser.getLocalName().equals("Description")) {
-
-                    } else if (parser.getLocalName().equals("MeasurementUnit")) {
-                        isMeasurementUnit = true;
-                    } else if (parser.getLocalName().equals("OCRProcessing")) {
-                        ocrProcessing = parser.getAttributeValue(null, "ID");
-                    } else if (parser.getLocalName().equals("ocrProcessingStep")) {
-
-                    } else if (parser.getLocalName().equals("processingDateTime")) {
-                        isProcessingDateTime = true;
-                    } else if (parser.getLocalName().equals("processingSoftware")) {
-
-                    } else if (parser.getLocalName().equals("softwareCreator")) {
-                        isSoftwareCreator = true;
-                    } else if (parser.getLocalName().equals("softwareName")) {
-                        isSoftwareName = true;
-                    } else if (parser.getLocalName().equals("softwareVersion")) {
-                        isSoftwareVersion = true;
-                    } else if (parser.getLocalName().equals("Styles")) {
-
-                    } else if (parser.getLocalName().equals("ParagraphStyle")) {
-                        //TODO: safe in hashmap plus add to files later.
-                    } else if (parser.getLocalName().equals("Layout")) {
-
-                    } else if (parser.getLocalName().equals("Page")) {
                         if (writer != null) {
-                            writeEndDocument(writer);
+                            depth++;
+                        }
+                        break;
+
+                    case XMLStreamConstants.CHARACTERS:
+                        if (isMeasurementUnit) {
+                            measurementUnit += parser.getText().trim();
+                        } else if (isProcessingDateTime) {
+                            processingDateTime += parser.getText().trim();
+                        } else if (isSoftwareCreator) {
+                            softwareCreator += parser.getText().trim();
+                        } else if (isSoftwareName) {
+                            softwareName += parser.getText().trim();
+                        } else if (isSoftwareVersion) {
+                            softwareVersion += parser.getText().trim();
+                        } else {
+                            if (writer != null) {
+                                writer.writeCharacters(parser.getText().trim());
+                            }
+                        }
+                        break;
+
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (isMeasurementUnit) {
+                            isMeasurementUnit = false;
+                        } else if (isProcessingDateTime) {
+                            isProcessingDateTime = false;
+                        } else if (isSoftwareCreator) {
+                            isSoftwareCreator = false;
+                        } else if (isSoftwareName) {
+                            isSoftwareName = false;
+                        } else if (isSoftwareVersion) {
+                            isSoftwareVersion = false;
                         }
-                        currentInfo = ImageInformation.getInformation(inputTifs.get(pageCount).toFile(), catalog.getPages().get(
-                                pageCount));
-                        //                        System.out.println("processing " + currentInfo.getBasename());
-
-                        writer = output.createXMLStreamWriter(Files.newOutputStream(Paths.get(outputFolder.toString(), currentInfo.getBasename()
-                                + ".xml")), encoding);
-
-                        pageCount++;
-                        writeStartAndDescritption(writer);
-                        copyElement(parser, writer);
-                    } else if (parser.getLocalName().equals("PrintSpace")) {
-                        //                        currentInfo.addLargeSize(Float.parseFloat(parser.getAttributeValue(null, "WIDTH")), Float.parseFloat(parser
-                        //                                .getAttributeValue(null, "HEIGHT")));
-                        deskewElement(parser, writer, currentInfo);
-                    } else if (parser.getLocalName().equals("TextBlock")) {
-                        deskewElement(parser, writer, currentInfo);
-                    } else if (parser.getLocalName().equals("TextLine")) {
-                        deskewElement(parser, writer, currentInfo);
-                    } else if (parser.getLocalName().equals("String")) {
-                        deskewElement(parser, writer, currentInfo);
-                    } else if (parser.getLocalName().equals("SP")) {
-                        deskewElement(parser, writer, currentInfo);
-                    } else if (parser.getLocalName().equals("Illustration")) {
-                        deskewElement(parser, writer, currentInfo);
-                    } else if (parser.getLocalName().equals("ComposedBlock")) {
-                        deskewElement(parser, writer, currentInfo);
-                    } else {
-                        copyElement(parser, writer);
-                    }
-                    break;
-
-                case XMLStreamConstants.CHARACTERS:
-                    if (isMeasurementUnit) {
-                        measurementUnit += parser.getText().trim();
-                    } else if (isProcessingDateTime) {
-                        processingDateTime += parser.getText().trim();
-                    } else if (isSoftwareCreator) {
-                        softwareCreator += parser.getText().trim();
-                    } else if (isSoftwareName) {
-                        softwareName += parser.getText().trim();
-                    } else if (isSoftwareVersion) {
-                        softwareVersion += parser.getText().trim();
-                    } else {
                         if (writer != null) {
-                            writer.writeCharacters(parser.getText().trim());
+                            writer.writeEndElement();
+                            depth--;
+                            if (depth == 0) {
+                                // end of the page
+                                writer.flush();
+                                writer.close();
+                                pageOut.write(footer);
+                                pageOut.close();
+                                writer = null;
+                                pageOut = null;
+                            }
                         }
-                    }
-                    break;
-
-                case XMLStreamConstants.END_ELEMENT:
-                    if (isMeasurementUnit) {
-                        isMeasurementUnit = false;
-                    } else if (isProcessingDateTime) {
-                        isProcessingDateTime = false;
-                    } else if (isSoftwareCreator) {
-                        isSoftwareCreator = false;
-                    } else if (isSoftwareName) {
-                        isSoftwareName = false;
-                    } else if (isSoftwareVersion) {
-                        isSoftwareVersion = false;
-                    }
-                    if (writer != null) {
-                        writer.writeEndElement();
-                    }
-                    break;
-
-                default:
-                    break;
+                        break;
+
+                    default:
+                        break;
+                }
+                parser.next();
+            }
+        } finally {
+            if (pageOut != null) {
+                // only set while a page is written
+                output.abortPage(pageOut);
             }
-            parser.next();
         }
     }
 
-    private static void deskewElement(XMLStreamReader parser, XMLStreamWriter writer, ImageInformation i) throws XMLStreamException {
-        boolean isPage = (parser.getLocalName().equals("Page"));
-        String hpos = parser.getAttributeValue(null, "HPOS");
-        String vpos = parser.getAttributeValue(null, "VPOS");
-        String height = parser.getAttributeValue(null, "HEIGHT");
-        String width = parser.getAttributeValue(null, "WIDTH");
-
+    /**
+     * Computes the deskewed box of an element from its raw HPOS, VPOS, WIDTH and HEIGHT attribute values. Missing values are passed as null.
+     * 
+     * @return the new values as {HPOS, VPOS, WIDTH, HEIGHT}
+     */
+    static int[] deskewBox(String hpos, String vpos, String width, String height, ImageInformation i) {
         float top_left_x = 0, top_left_y = 0, bottom_right_x = 0, bottom_right_y = 0;
         if (hpos != null && vpos != null) {
             top_left_x = Integer.parseInt(hpos);
@@ -211,25 +266,55 @@ public class AltoDeskewer {
         double bottom_right_y_new = (int) ((Math.sin(-i.getAlpha()) * (bottom_right_x - (i.getLargeWidth() * 0.5))) + (Math.cos(-i.getAlpha())
                 * (bottom_right_y - (i.getLargeLength() * 0.5))) + (i.getSmallLength() * 0.5));
 
+        return new int[] { (int) top_left_x_new, (int) top_left_y_new, (int) (bottom_right_x_new - top_left_x_new),
+                (int) (bottom_right_y_new - top_left_y_new) };
+    }
+
+    /**
+     * Returns the next ID for a String element without ID. The counter is shared by all engines.
+     */
+    static String nextStringId() {
+        return "String_" + stringIdCount++;
+    }
+
+    private static void resetHeader() {
+        namespaceList.clear();
+        measurementUnit = "";
+        ocrProcessing = "";
+        processingDateTime = "";
+        softwareCreator = "";
+        softwareName = "";
+        softwareVersion = "";
+    }
+
+    private static void deskewElement(XMLStreamReader parser, XMLStreamWriter writer, ImageInformation i) throws XMLStreamException {
+        boolean isPage = (parser.getLocalName().equals("Page"));
+        String hpos = parser.getAttributeValue(null, "HPOS");
+        String vpos = parser.getAttributeValue(null, "VPOS");
+        String height = parser.getAttributeValue(null, "HEIGHT");
+        String width = parser.getAttributeValue(null, "WIDTH");
+
+        int[] box = deskewBox(hpos, vpos, width, height, i);
+
         writer.writeStartElement(parser.getNamespaceURI(), parser.getLocalName());
         for (int j = 0; j < parser.getAttributeCount(); j++) {
             if (parser.getAttributeLocalName(j).equals("HPOS")) {
                 //                System.out.println(((int) top_left_x_new));
-                writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(((int) top_left_x_new)));
+                writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(box[0]));
             } else if (parser.getAttributeLocalName(j).equals("VPOS")) {
                 //                System.out.println((int) top_left_y_new);
-                writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(((int) top_left_y_new)));
+                writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(box[1]));
             } else if (parser.getAttributeLocalName(j).equals("HEIGHT")) {
                 if (isPage) {
                     writer.writeAttribute("HEIGHT", Integer.toString((int) i.getSmallLength()));
                 } else {
-                    writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(((int) (bottom_right_y_new - top_left_y_new))));
+                    writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(box[3]));
                 }
             } else if (parser.getAttributeLocalName(j).equals("WIDTH")) {
                 if (isPage) {
                     writer.writeAttribute("WIDTH", Integer.toString((int) i.getSmallWidth()));
                 } else {
-                    writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(((int) (bottom_right_x_new - top_left_x_new))));
+                    writer.writeAttribute(parser.getAttributeLocalName(j), Integer.toString(box[2]));
                 }
             } else {
                 if (parser.getAttributeNamespace(j) == null) {
@@ -249,7 +334,7 @@ public class AltoDeskewer {
             }
         }
         if (parser.getLocalName().equals("String") && parser.getAttributeValue(null, "ID") == null) {
-            writer.writeAttribute("ID", "String_" + stringIdCount++);
+            writer.writeAttribute("ID", nextStringId());
         }
     }
 
@@ -291,12 +376,42 @@ public class AltoDeskewer {
         writer.writeStartElement(altoNS, "Layout");
     }
 
-    private static void writeEndDocument(XMLStreamWriter writer) throws XMLStreamException {
+    /**
+     * Moves the parser from the start to the end of the current element.
+     */
+    private static void skipElement(XMLStreamReader parser) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = parser.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Serialises everything in front of the first Page element and the end of the document, which are written unchanged around every page. Both
+     * come from the same writer, so the end tags use the prefixes the writer chose for the start tags.
+     * 
+     * @return {header, footer}
+     */
+    private static byte[][] serializeFrame(XmlEngine engine) throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = engine.createWriter(out, encoding);
+        writeStartAndDescritption(writer);
+        // completes the start tag of Layout. Only flush here, some implementations end all open elements on close.
+        writer.writeCharacters("");
+        writer.flush();
+        int headerLength = out.size();
         writer.writeEndElement();
         writer.writeEndElement();
         writer.writeEndDocument();
         writer.flush();
         writer.close();
+        byte[] frame = out.toByteArray();
+        return new byte[][] { Arrays.copyOfRange(frame, 0, headerLength), Arrays.copyOfRange(frame, headerLength, frame.length) };
     }
 
     private static void copyElement(XMLStreamReader parser, XMLStreamWriter writer) throws XMLStreamException {
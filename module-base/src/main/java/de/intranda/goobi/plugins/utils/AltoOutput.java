@@ -0,0 +1,244 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Destination of the per-page ALTO files. Pages are written either as single files into a folder, optionally gzip compressed, or as entries of
+ * one ZIP container per book. The central directory of the ZIP file allows to read single pages without unpacking the others.
+ *
+ * The container is written as a stream into a temporary file next to it, so only the page currently written is held in memory. Only
+ * {@link #commit()} replaces the container with the temporary file, an output closed without it leaves an existing container untouched.
+ */
+public class AltoOutput implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Compression {
+        NONE,
+        GZIP;
+
+        /**
+         * Returns the compression for a configuration value, an empty value means no compression.
+         *
+         * @throws IllegalArgumentException if the compression is not supported
+         */
+        public static Compression fromString(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return NONE;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported ALTO compression " + value + ", use none or gzip.", e);
+            }
+        }
+    }
+
+    private final Path folder;
+    private final ParallelIo io;
+    private final boolean compact;
+    private final Compression compression;
+
+    // only set for a ZIP container
+    private final Path zipFile;
+    private final Path tempFile;
+    private final ZipOutputStream zip;
+    private final Set<String> entryNames = new HashSet<>();
+    private boolean committed = false;
+
+    private AltoOutput(Path folder, ParallelIo io, boolean compact, Compression compression, Path zipFile, Path tempFile, ZipOutputStream zip) {
+        this.folder = folder;
+        this.io = io;
+        this.compact = compact;
+        this.compression = compression;
+        this.zipFile = zipFile;
+        this.tempFile = tempFile;
+        this.zip = zip;
+    }
+
+    /**
+     * Writes uncompressed pages into the folder, keeping the formatting of the engine.
+     */
+    public static AltoOutput toFolder(Path folder, ParallelIo io) {
+        return toFolder(folder, io, false, Compression.NONE);
+    }
+
+    /**
+     * Writes one file per page into the folder.
+     *
+     * @param folder the output folder
+     * @param io if not null, the files are written in the background
+     * @param compact if true, whitespace between elements is left out
+     * @param compression compression of each file, gzip files get the extension .xml.gz
+     */
+    public static AltoOutput toFolder(Path folder, ParallelIo io, boolean compact, Compression compression) {
+        return new AltoOutput(folder, io, compact, compression, null, null, null);
+    }
+
+    /**
+     * Writes the pages as entries of a ZIP file. If the file already exists, the pages written now replace their entries and all other entries are
+     * copied over by {@link #commit()}. Updating a container therefore always rewrites all of it, also if only a few pages are written. Pages have
+     * to be written one after the other.
+     *
+     * @param zipFile the ZIP file
+     * @param compact if true, whitespace between elements is left out
+     * @param compression NONE stores the entries, GZIP deflates them
+     */
+    public static AltoOutput toContainer(Path zipFile, boolean compact, Compression compression) throws IOException {
+        Path target = zipFile.toAbsolutePath();
+        // a plain new file gets the default permissions, unlike Files.createTempFile, and keeps them when it replaces the container
+        Path tempFile = target.resolveSibling(target.getFileName() + ".tmp");
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE));
+        zip.setMethod(compression == Compression.NONE ? ZipOutputStream.STORED : ZipOutputStream.DEFLATED);
+        return new AltoOutput(null, null, compact, compression, target, tempFile, zip);
+    }
+
+    /**
+     * Opens the stream for the ALTO file of a page. Closing the stream completes the page.
+     */
+    public OutputStream newPageStream(String basename) throws IOException {
+        if (zip != null) {
+            return new ContainerEntryStream(basename + ".xml");
+        }
+        OutputStream out;
+        if (compression == Compression.GZIP) {
+            Path file = folder.resolve(basename + ".xml.gz");
+            out = new GZIPOutputStream(io == null ? Files.newOutputStream(file) : io.newOutputStream(file), BUFFER_SIZE);
+        } else {
+            Path file = folder.resolve(basename + ".xml");
+            out = io == null ? Files.newOutputStream(file) : io.newOutputStream(file);
+        }
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    /**
+     * Closes the stream of a page that could not be completed. In a ZIP container the page is not added.
+     */
+    public void abortPage(OutputStream pageStream) throws IOException {
+        if (pageStream instanceof ContainerEntryStream) {
+            ((ContainerEntryStream) pageStream).discard();
+        }
+        pageStream.close();
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Completes a successful run. For a ZIP container the remaining entries of an existing container are copied and the container is replaced.
+     * Single files are complete once their stream is closed.
+     */
+    public void commit() throws IOException {
+        if (zip == null || committed) {
+            return;
+        }
+        try {
+            if (Files.exists(zipFile)) {
+                copyOtherEntries();
+            }
+        } finally {
+            zip.close();
+        }
+        Files.move(tempFile, zipFile, StandardCopyOption.REPLACE_EXISTING);
+        committed = true;
+    }
+
+    /**
+     * Discards the temporary file of a ZIP container that was not committed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (zip == null || committed) {
+            return;
+        }
+        try {
+            zip.close();
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void copyOtherEntries() throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (ZipFile existing = new ZipFile(zipFile.toFile())) {
+            Enumeration<? extends ZipEntry> entries = existing.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entryNames.contains(entry.getName())) {
+                    continue;
+                }
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setMethod(entry.getMethod());
+                copy.setTime(entry.getTime());
+                if (entry.getMethod() == ZipEntry.STORED) {
+                    copy.setSize(entry.getSize());
+                    copy.setCompressedSize(entry.getSize());
+                    copy.setCrc(entry.getCrc());
+                }
+                zip.putNextEntry(copy);
+                try (InputStream in = existing.getInputStream(entry)) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        zip.write(buffer, 0, read);
+                    }
+                }
+                zip.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Collects one page and adds it to the container when closed. Stored entries need their size and checksum before the data, so the page is
+     * buffered in any case.
+     */
+    private class ContainerEntryStream extends ByteArrayOutputStream {
+        private final String name;
+        private boolean closed = false;
+
+        private ContainerEntryStream(String name) {
+            super(BUFFER_SIZE);
+            this.name = name;
+        }
+
+        private void discard() {
+            closed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ZipEntry entry = new ZipEntry(name);
+            if (compression == Compression.NONE) {
+                CRC32 crc = new CRC32();
+                crc.update(buf, 0, count);
+                entry.setSize(count);
+                entry.setCompressedSize(count);
+                entry.setCrc(crc.getValue());
+            }
+            zip.putNextEntry(entry);
+            writeTo(zip);
+            zip.closeEntry();
+            entryNames.add(name);
+        }
+    }
+}
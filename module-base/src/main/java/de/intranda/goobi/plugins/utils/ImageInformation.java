@@ -10,6 +10,7 @@ import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.ImageInputStream;
 
 import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -36,6 +37,21 @@ public class ImageInformation {
      * @throws IOException
      */
     public static ImageInformation getInformation(File small, PDPage page) throws IOException {
+        PDRectangle trimBox = page.getTrimBox();
+        return getInformation(small, trimBox.getWidth(), trimBox.getHeight());
+    }
+
+    /**
+     * Returns the ImageInformation of a small image lying in a large image with a trim box of the given size. The size is passed as plain values,
+     * so that the PDF is only accessed by the thread that read them.
+     * 
+     * @param small the small, rotated image, which lies in the large image
+     * @param trimWidth width of the trim box of the large image in points
+     * @param trimHeight height of the trim box of the large image in points
+     * @return ImageInformation
+     * @throws IOException
+     */
+    public static ImageInformation getInformation(File small, float trimWidth, float trimHeight) throws IOException {
         ImageInformation i = new ImageInformation();
 
         i.basename = small.getName().substring(0, small.getName().lastIndexOf('.'));
@@ -82,8 +98,8 @@ public class ImageInformation {
 
             // large image:
 
-            i.largeWidth = page.getTrimBox().getWidth() * i.densityX / 72;
-            i.largeLength = page.getTrimBox().getHeight() * i.densityY / 72;
+            i.largeWidth = trimWidth * i.densityX / 72;
+            i.largeLength = trimHeight * i.densityY / 72;
 
             i.alpha = Math
                     .asin((0.5 * (i.largeLength - Math.sqrt(Math.pow(i.smallWidth, 2) + Math.pow(i.smallLength, 2) - Math.pow(i.largeWidth, 2))))
@@ -132,6 +148,20 @@ public class ImageInformation {
         return i;
     }
 
+    /**
+     * Creates an ImageInformation from already known sizes, without reading any image.
+     */
+    static ImageInformation create(String basename, float smallWidth, float smallLength, float largeWidth, float largeLength, double alpha) {
+        ImageInformation i = new ImageInformation();
+        i.basename = basename;
+        i.smallWidth = smallWidth;
+        i.smallLength = smallLength;
+        i.largeWidth = largeWidth;
+        i.largeLength = largeLength;
+        i.alpha = alpha;
+        return i;
+    }
+
     private static String getVerticalPixelSize(Node domNode) {
         String result = null;
 
@@ -0,0 +1,65 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageTree;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+
+/**
+ * Supplies the {@link ImageInformation} of a page, identified by its index in the ALTO file.
+ */
+interface PageInformationProvider {
+
+    /**
+     * @return the ImageInformation, or null if the page is not to be written
+     */
+    ImageInformation getInformation(int pageIndex) throws IOException;
+
+    /**
+     * Returns a provider reading the image of each page when it is requested.
+     */
+    static PageInformationProvider of(List<Path> inputTifs, PDDocument inputPdf) {
+        PDPageTree pages = inputPdf.getDocumentCatalog().getPages();
+        return pageIndex -> ImageInformation.getInformation(inputTifs.get(pageIndex).toFile(), pages.get(pageIndex));
+    }
+
+    /**
+     * Returns a provider for which the headers of the images are already being read concurrently. The PDF is only accessed by the calling thread.
+     * If pages are selected, all other pages return null.
+     * 
+     * @param pageIndices indices of the pages to read, or null for all pages
+     */
+    static PageInformationProvider prefetch(List<Path> inputTifs, PDDocument inputPdf, ParallelIo io, Set<Integer> pageIndices)
+            throws IOException {
+        PDPageTree pages = inputPdf.getDocumentCatalog().getPages();
+        Map<Integer, Future<ImageInformation>> infos = new HashMap<>();
+        for (int i = 0; i < inputTifs.size() && i < pages.getCount(); i++) {
+            if (pageIndices != null && !pageIndices.contains(i)) {
+                continue;
+            }
+            Path tif = inputTifs.get(i);
+            // PDFBox objects stay on this thread, the background task only gets the size
+            PDRectangle trimBox = pages.get(i).getTrimBox();
+            float trimWidth = trimBox.getWidth();
+            float trimHeight = trimBox.getHeight();
+            infos.put(i, io.submit(() -> ImageInformation.getInformation(tif.toFile(), trimWidth, trimHeight)));
+        }
+        return pageIndex -> {
+            Future<ImageInformation> info = infos.get(pageIndex);
+            if (info == null) {
+                if (pageIndices == null) {
+                    throw new IOException("No image for page " + (pageIndex + 1) + ".");
+                }
+                return null;
+            }
+            return io.get(info);
+        };
+    }
+}
@@ -0,0 +1,183 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs filesystem operations concurrently, so that on network storage the latency of many small operations overlaps. Every operation runs in its
+ * own virtual thread. The number of outstanding operations is limited by a semaphore, submitting more operations blocks the caller until a running
+ * one has finished.
+ *
+ * Errors of operations nobody waits for are reported by {@link #await()} and {@link #close()}.
+ */
+public class ParallelIo implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    /**
+     * @param maxConcurrent the maximum number of operations running at the same time
+     */
+    public ParallelIo(int maxConcurrent) {
+        this.permits = new Semaphore(Math.max(1, maxConcurrent));
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Submits an operation, blocking while the maximum number of operations is already running.
+     */
+    public <T> Future<T> submit(Callable<T> operation) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an I/O slot.");
+        }
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                try {
+                    return operation.call();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        synchronized (pending) {
+            pending.add(future);
+        }
+        return future;
+    }
+
+    /**
+     * Moves a file in the background.
+     */
+    public Future<Path> move(Path source, Path target) throws IOException {
+        return submit(() -> Files.move(source, target, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    /**
+     * Creates a directory and its parents in the background.
+     */
+    public Future<Path> createDirectories(Path directory) throws IOException {
+        return submit(() -> Files.createDirectories(directory));
+    }
+
+    /**
+     * Returns a stream collecting the content in memory. Closing it writes the content to the file in the background.
+     */
+    public OutputStream newOutputStream(Path file) {
+        return new BackgroundFileOutputStream(file);
+    }
+
+    /**
+     * Waits for an operation and returns its result, rethrowing its IOException. Other exceptions are wrapped in an IOException. The error is not
+     * reported again by {@link #await()}.
+     */
+    public <T> T get(Future<T> future) throws IOException {
+        try {
+            return getResult(future);
+        } finally {
+            synchronized (pending) {
+                pending.remove(future);
+            }
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an I/O operation.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            // e.g. a NullPointerException for an unreadable image, reported like an I/O error so that the caller can handle it
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Waits for all operations submitted so far, also if some of them failed, and throws the first error with the others suppressed.
+     */
+    public void await() throws IOException {
+        List<Future<?>> futures;
+        synchronized (pending) {
+            futures = new ArrayList<>(pending);
+            pending.clear();
+        }
+        IOException error = null;
+        for (Future<?> future : futures) {
+            try {
+                getResult(future);
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                } else {
+                    error.addSuppressed(e);
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Waits for all outstanding operations and stops the threads.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            await();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private class BackgroundFileOutputStream extends ByteArrayOutputStream {
+        private final Path file;
+        private boolean closed = false;
+
+        private BackgroundFileOutputStream(Path file) {
+            super(64 * 1024);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            submit(() -> {
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    writeTo(out);
+                }
+                return file;
+            });
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds a configured pair of StAX factories. Looking up and configuring the factories is expensive, so every configuration is created only once
+ * per JVM and then shared, the factories are thread safe once they are configured.
+ *
+ * Any StAX implementation on the classpath can be used by naming its factory classes, e.g. com.ctc.wstx.stax.WstxInputFactory and
+ * com.ctc.wstx.stax.WstxOutputFactory for Woodstox or com.fasterxml.aalto.stax.InputFactoryImpl and com.fasterxml.aalto.stax.OutputFactoryImpl
+ * for Aalto. If a class can not be loaded, the default implementation of the JDK is used.
+ */
+public class XmlEngine {
+    private static final Logger logger = Logger.getLogger(XmlEngine.class);
+
+    private static final Map<String, XmlEngine> engines = new ConcurrentHashMap<>();
+
+    private final XMLInputFactory inputFactory;
+    private final XMLOutputFactory outputFactory;
+
+    private XmlEngine(XMLInputFactory inputFactory, XMLOutputFactory outputFactory) {
+        this.inputFactory = inputFactory;
+        this.outputFactory = outputFactory;
+    }
+
+    /**
+     * Returns the engine using the default StAX implementation of the JDK.
+     */
+    public static XmlEngine getDefault() {
+        return getInstance(null, null, false, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Returns the engine for the given configuration, creating it on first use.
+     *
+     * @param inputFactoryClass class name of the XMLInputFactory, or null for the JDK default
+     * @param outputFactoryClass class name of the XMLOutputFactory, or null for the JDK default
+     * @param coalescing if true, adjacent character data is reported as one event
+     * @param inputProperties additional properties for the input factory, e.g. buffer sizes. Unsupported properties are ignored.
+     * @param outputProperties additional properties for the output factory. Unsupported properties are ignored.
+     * @return XmlEngine
+     */
+    public static XmlEngine getInstance(String inputFactoryClass, String outputFactoryClass, boolean coalescing, Map<String, String> inputProperties,
+            Map<String, String> outputProperties) {
+        String key = inputFactoryClass + "|" + outputFactoryClass + "|" + coalescing + "|" + new TreeMap<>(inputProperties) + "|" + new TreeMap<>(
+                outputProperties);
+        return engines.computeIfAbsent(key, k -> create(inputFactoryClass, outputFactoryClass, coalescing, inputProperties, outputProperties));
+    }
+
+    private static XmlEngine create(String inputFactoryClass, String outputFactoryClass, boolean coalescing, Map<String, String> inputProperties,
+            Map<String, String> outputProperties) {
+        XMLInputFactory inputFactory = newInstance(inputFactoryClass, XMLInputFactory.class);
+        if (inputFactory == null) {
+            inputFactory = XMLInputFactory.newFactory();
+        }
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        for (Entry<String, String> property : inputProperties.entrySet()) {
+            if (inputFactory.isPropertySupported(property.getKey())) {
+                try {
+                    inputFactory.setProperty(property.getKey(), convert(property.getValue()));
+                } catch (IllegalArgumentException | ClassCastException e) {
+                    logger.warn("Value " + property.getValue() + " of property " + property.getKey() + " is not accepted by "
+                            + inputFactory.getClass().getName(), e);
+                }
+            } else {
+                logger.warn("Property " + property.getKey() + " is not supported by " + inputFactory.getClass().getName());
+            }
+        }
+
+        XMLOutputFactory outputFactory = newInstance(outputFactoryClass, XMLOutputFactory.class);
+        if (outputFactory == null) {
+            outputFactory = XMLOutputFactory.newFactory();
+        }
+        for (Entry<String, String> property : outputProperties.entrySet()) {
+            if (outputFactory.isPropertySupported(property.getKey())) {
+                try {
+                    outputFactory.setProperty(property.getKey(), convert(property.getValue()));
+                } catch (IllegalArgumentException | ClassCastException e) {
+                    logger.warn("Value " + property.getValue() + " of property " + property.getKey() + " is not accepted by "
+                            + outputFactory.getClass().getName(), e);
+                }
+            } else {
+                logger.warn("Property " + property.getKey() + " is not supported by " + outputFactory.getClass().getName());
+            }
+        }
+
+        logger.debug("Using " + inputFactory.getClass().getName() + " and " + outputFactory.getClass().getName());
+        return new XmlEngine(inputFactory, outputFactory);
+    }
+
+    private static <T> T newInstance(String className, Class<T> type) {
+        if (className == null || className.isEmpty()) {
+            return null;
+        }
+        try {
+            Class<?> clazz = Class.forName(className, true, XmlEngine.class.getClassLoader());
+            return type.cast(clazz.getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+            logger.warn("Cannot use " + className + ", falling back to the default implementation.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Factory properties are mostly booleans or integers, everything else is passed as string.
+     */
+    private static Object convert(String value) {
+        if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+            return Boolean.valueOf(value);
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+
+    public XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        return inputFactory.createXMLStreamReader(in);
+    }
+
+    public XMLStreamWriter createWriter(OutputStream out, String encoding) throws XMLStreamException {
+        return outputFactory.createXMLStreamWriter(out, encoding);
+    }
+
+    XMLInputFactory getInputFactory() {
+        return inputFactory;
+    }
+
+    XMLOutputFactory getOutputFactory() {
+        return outputFactory;
+    }
+}
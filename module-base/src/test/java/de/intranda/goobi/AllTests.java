@@ -4,8 +4,16 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import de.intranda.goobi.plugins.AltoCorrectionPluginTest;
+import de.intranda.goobi.plugins.utils.AltoByteDeskewerTest;
+import de.intranda.goobi.plugins.utils.AltoDeskewerTest;
+import de.intranda.goobi.plugins.utils.AltoOutputTest;
+import de.intranda.goobi.plugins.utils.ParallelIoTest;
+import de.intranda.goobi.plugins.utils.XmlEngineTest;
+
 @RunWith(Suite.class)
-@SuiteClasses({  })
+@SuiteClasses({ AltoByteDeskewerTest.class, XmlEngineTest.class, ParallelIoTest.class, AltoOutputTest.class, AltoCorrectionPluginTest.class,
+        AltoDeskewerTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,69 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class AltoCorrectionPluginTest {
+
+    private static final List<Path> TIFS = Arrays.asList(Paths.get("images", "00000001.tif"), Paths.get("images", "00000002.tif"), Paths.get(
+            "images", "00000003.tif"), Paths.get("images", "cover.tif"));
+
+    @Test
+    public void testBasenames() {
+        assertEquals(indices(1, 3), AltoCorrectionPlugin.getPageIndices(pages("cover", "00000002"), TIFS));
+    }
+
+    @Test
+    public void testPageNumbers() {
+        assertEquals(indices(0, 2), AltoCorrectionPlugin.getPageIndices(pages("3", "1"), TIFS));
+    }
+
+    @Test
+    public void testBasenameBeforePageNumber() {
+        List<Path> tifs = Arrays.asList(Paths.get("images", "2.tif"), Paths.get("images", "1.tif"));
+        assertEquals(indices(0), AltoCorrectionPlugin.getPageIndices(pages("2"), tifs));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageZero() {
+        AltoCorrectionPlugin.getPageIndices(pages("0"), TIFS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageNumberOutOfRange() {
+        AltoCorrectionPlugin.getPageIndices(pages("1", "5"), TIFS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testHugePageNumber() {
+        AltoCorrectionPlugin.getPageIndices(pages("99999999999"), TIFS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownBasename() {
+        AltoCorrectionPlugin.getPageIndices(pages("00000001", "back"), TIFS);
+    }
+
+    @Test
+    public void testSplitPropertyValue() {
+        assertEquals(Arrays.asList("00000002", "5", "cover"), Arrays.asList(AltoCorrectionPlugin.getPages(" 00000002, 5\ncover,,").toArray()));
+        assertEquals(0, AltoCorrectionPlugin.getPages(null).size());
+    }
+
+    private static Set<String> pages(String... pages) {
+        return new LinkedHashSet<>(Arrays.asList(pages));
+    }
+
+    private static Set<Integer> indices(Integer... indices) {
+        return new TreeSet<>(Arrays.asList(indices));
+    }
+}
@@ -0,0 +1,213 @@
+package de.intranda.goobi.plugins.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+public class AltoByteDeskewerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path altoFile;
+    private List<ImageInformation> pages;
+
+    @Before
+    public void setUp() throws Exception {
+        altoFile = Paths.get(getClass().getResource("/alto/book.xml").toURI());
+        pages = TestPages.book();
+    }
+
+    @Test
+    public void testEquivalentToStaxEngine() throws Exception {
+        File staxFolder = folder.newFolder("stax");
+        File byteFolder = folder.newFolder("byte");
+        AltoDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(staxFolder.toPath(), null), XmlEngine.getDefault());
+        AltoByteDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(byteFolder.toPath(), null), XmlEngine.getDefault());
+
+        for (ImageInformation page : pages) {
+            Element staxLayout = readLayout(new File(staxFolder, page.getBasename() + ".xml"));
+            Element byteLayout = readLayout(new File(byteFolder, page.getBasename() + ".xml"));
+            assertEquivalent(staxLayout, byteLayout);
+        }
+    }
+
+    @Test
+    public void testCopiesUnchangedBytes() throws Exception {
+        File byteFolder = folder.newFolder("byte");
+        AltoByteDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(byteFolder.toPath(), null), XmlEngine.getDefault());
+
+        String content = new String(Files.readAllBytes(byteFolder.toPath().resolve("00000001.xml")), "UTF-8");
+        assertTrue(content.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"));
+        assertTrue(content.contains("<TextStyle ID=\"TS_1\" FONTSIZE=\"10\"/>"));
+        assertTrue(content.contains("CONTENT=\"Fish &amp; Chips\""));
+        assertTrue(content.contains("<!-- a comment with <String HPOS=\"1\"/> inside -->"));
+        assertTrue(content.contains("<Page ID=\"Page1\" PHYSICAL_IMG_NR=\"1\" HEIGHT=\"3300\" WIDTH=\"2500\">"));
+        assertTrue(content.endsWith("</Page>\n</Layout>\n</alto>\n"));
+    }
+
+    @Test
+    public void testParallelIoWritesSameFiles() throws Exception {
+        File byteFolder = folder.newFolder("byte");
+        File parallelFolder = folder.newFolder("parallel");
+        AltoByteDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(byteFolder.toPath(), null), XmlEngine.getDefault());
+        try (ParallelIo io = new ParallelIo(2)) {
+            AltoByteDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(parallelFolder.toPath(), io), XmlEngine.getDefault());
+        }
+
+        for (ImageInformation page : pages) {
+            String expected = new String(Files.readAllBytes(byteFolder.toPath().resolve(page.getBasename() + ".xml")), "UTF-8");
+            String actual = new String(Files.readAllBytes(parallelFolder.toPath().resolve(page.getBasename() + ".xml")), "UTF-8");
+            assertEquals(expected.replaceAll("String_\\d+", "String_"), actual.replaceAll("String_\\d+", "String_"));
+        }
+    }
+
+    @Test
+    public void testSelectedPagesOnly() throws Exception {
+        File staxFolder = folder.newFolder("stax");
+        File byteFolder = folder.newFolder("byte");
+        File allFolder = folder.newFolder("all");
+        PageInformationProvider secondPageOnly = pageIndex -> pageIndex == 1 ? pages.get(1) : null;
+        AltoDeskewer.deskewAlto(altoFile, secondPageOnly, AltoOutput.toFolder(staxFolder.toPath(), null), XmlEngine.getDefault());
+        AltoByteDeskewer.deskewAlto(altoFile, secondPageOnly, AltoOutput.toFolder(byteFolder.toPath(), null), XmlEngine.getDefault());
+        AltoByteDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(allFolder.toPath(), null), XmlEngine.getDefault());
+
+        assertEquals(1, staxFolder.list().length);
+        assertEquals(1, byteFolder.list().length);
+        assertEquivalent(readLayout(new File(allFolder, "00000002.xml")), readLayout(new File(staxFolder, "00000002.xml")));
+        assertArrayEquals(Files.readAllBytes(allFolder.toPath().resolve("00000002.xml")), Files.readAllBytes(byteFolder.toPath().resolve(
+                "00000002.xml")));
+    }
+
+    @Test
+    public void testCompactOutput() throws Exception {
+        File staxFolder = folder.newFolder("stax");
+        File compactFolder = folder.newFolder("compact");
+        AltoDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(staxFolder.toPath(), null), XmlEngine.getDefault());
+        AltoByteDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(compactFolder.toPath(), null, true, AltoOutput.Compression.NONE),
+                XmlEngine.getDefault());
+
+        for (ImageInformation page : pages) {
+            File compactFile = new File(compactFolder, page.getBasename() + ".xml");
+            assertEquivalent(readLayout(new File(staxFolder, page.getBasename() + ".xml")), readLayout(compactFile));
+            String content = new String(Files.readAllBytes(compactFile.toPath()), "UTF-8");
+            assertTrue(content.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><alto "));
+            assertTrue(content.endsWith("</Page></Layout></alto>"));
+            assertFalse(content.contains(">\n"));
+        }
+    }
+
+    @Test
+    public void testDeskewedValues() throws Exception {
+        File byteFolder = folder.newFolder("byte");
+        AltoByteDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(byteFolder.toPath(), null), XmlEngine.getDefault());
+
+        Element layout = readLayout(byteFolder.toPath().resolve("00000002.xml").toFile());
+        Element string = (Element) layout.getElementsByTagNameNS("*", "String").item(0);
+        int[] box = AltoDeskewer.deskewBox("300", "400", "900", "55", pages.get(1));
+        assertEquals(Integer.toString(box[0]), string.getAttribute("HPOS"));
+        assertEquals(Integer.toString(box[1]), string.getAttribute("VPOS"));
+        assertEquals(Integer.toString(box[2]), string.getAttribute("WIDTH"));
+        assertEquals(Integer.toString(box[3]), string.getAttribute("HEIGHT"));
+    }
+
+    @Test
+    public void testFailedRunKeepsContainer() throws Exception {
+        Path zip = folder.getRoot().toPath().resolve("alto.zip");
+        try (AltoOutput output = AltoOutput.toContainer(zip, false, AltoOutput.Compression.NONE)) {
+            AltoByteDeskewer.deskewAlto(altoFile, pages::get, output, XmlEngine.getDefault());
+            output.commit();
+        }
+        byte[] container = Files.readAllBytes(zip);
+
+        // the second page ends in the middle
+        String content = new String(Files.readAllBytes(altoFile), StandardCharsets.UTF_8);
+        Path truncated = folder.newFile("truncated.xml").toPath();
+        Files.write(truncated, content.substring(0, content.indexOf("CONTENT=\"Ende\"")).getBytes(StandardCharsets.UTF_8));
+        try (AltoOutput output = AltoOutput.toContainer(zip, false, AltoOutput.Compression.NONE)) {
+            AltoByteDeskewer.deskewAlto(truncated, pages::get, output, XmlEngine.getDefault());
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertArrayEquals(container, Files.readAllBytes(zip));
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    private static Element readLayout(File file) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        NodeList layouts = factory.newDocumentBuilder().parse(file).getElementsByTagNameNS("*", "Layout");
+        assertEquals(1, layouts.getLength());
+        return (Element) layouts.item(0);
+    }
+
+    private static void assertEquivalent(Element expected, Element actual) {
+        assertEquals(expected.getNamespaceURI(), actual.getNamespaceURI());
+        assertEquals(expected.getLocalName(), actual.getLocalName());
+
+        NamedNodeMap expectedAttributes = expected.getAttributes();
+        assertEquals(expected.getLocalName(), expectedAttributes.getLength(), actual.getAttributes().getLength());
+        for (int i = 0; i < expectedAttributes.getLength(); i++) {
+            Node attribute = expectedAttributes.item(i);
+            String actualValue = actual.getAttributeNS(attribute.getNamespaceURI(), attribute.getLocalName());
+            if (attribute.getLocalName().equals("ID") && attribute.getNodeValue().startsWith("String_")) {
+                // generated IDs depend on the shared counter
+                assertTrue(actualValue.startsWith("String_"));
+            } else {
+                assertEquals(expected.getLocalName() + "/@" + attribute.getLocalName(), attribute.getNodeValue(), actualValue);
+            }
+        }
+
+        List<Element> expectedChildren = childElements(expected);
+        List<Element> actualChildren = childElements(actual);
+        assertEquals(expected.getLocalName(), expectedChildren.size(), actualChildren.size());
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            assertEquivalent(expectedChildren.get(i), actualChildren.get(i));
+        }
+        assertEquals(text(expected), text(actual));
+    }
+
+    private static List<Element> childElements(Element element) {
+        List<Element> children = new ArrayList<>();
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) n);
+            }
+        }
+        return children;
+    }
+
+    private static String text(Element element) {
+        StringBuilder text = new StringBuilder();
+        for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.TEXT_NODE || n.getNodeType() == Node.CDATA_SECTION_NODE) {
+                text.append(n.getNodeValue().trim());
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class AltoDeskewerTest {
+
+    private static final String ALTO_V4 = "http://www.loc.gov/standards/alto/ns-v4#";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<ImageInformation> pages;
+
+    @Before
+    public void setUp() throws Exception {
+        pages = TestPages.book();
+    }
+
+    @Test
+    public void testPrefixedNamespace() throws Exception {
+        Path altoFile = Paths.get(getClass().getResource("/alto/prefixed.xml").toURI());
+        File staxFolder = folder.newFolder("stax");
+        AltoDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(staxFolder.toPath(), null), XmlEngine.getDefault());
+
+        for (ImageInformation page : pages) {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            // fails if the end tags do not match the start tags
+            Element alto = factory.newDocumentBuilder().parse(new File(staxFolder, page.getBasename() + ".xml")).getDocumentElement();
+            assertEquals(ALTO_V4, alto.getNamespaceURI());
+            NodeList layouts = alto.getElementsByTagNameNS(ALTO_V4, "Layout");
+            assertEquals(1, layouts.getLength());
+            assertEquals(1, ((Element) layouts.item(0)).getElementsByTagNameNS(ALTO_V4, "Page").getLength());
+        }
+    }
+
+    @Test
+    public void testWriterEndingOpenElementsOnClose() throws Exception {
+        XmlEngine autoClosing = XmlEngine.getInstance(null, AutoClosingOutputFactory.class.getName(), false, Collections.emptyMap(), Collections
+                .emptyMap());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XMLStreamWriter writer = autoClosing.createWriter(out, "UTF-8");
+        writer.writeStartElement("a");
+        writer.close();
+        assertEquals("<a></a>", new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        Path altoFile = Paths.get(getClass().getResource("/alto/book.xml").toURI());
+        File defaultFolder = folder.newFolder("default");
+        File autoClosingFolder = folder.newFolder("autoClosing");
+        AltoDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(defaultFolder.toPath(), null), XmlEngine.getDefault());
+        AltoDeskewer.deskewAlto(altoFile, pages::get, AltoOutput.toFolder(autoClosingFolder.toPath(), null), autoClosing);
+
+        for (ImageInformation page : pages) {
+            String expected = new String(Files.readAllBytes(defaultFolder.toPath().resolve(page.getBasename() + ".xml")), StandardCharsets.UTF_8);
+            String actual = new String(Files.readAllBytes(autoClosingFolder.toPath().resolve(page.getBasename() + ".xml")), StandardCharsets.UTF_8);
+            assertEquals(expected.replaceAll("String_\\d+", "String_"), actual.replaceAll("String_\\d+", "String_"));
+        }
+    }
+}
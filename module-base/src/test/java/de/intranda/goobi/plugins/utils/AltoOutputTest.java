@@ -0,0 +1,183 @@
+package de.intranda.goobi.plugins.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.utils.AltoOutput.Compression;
+
+public class AltoOutputTest {
+
+    private static final byte[] PAGE_1 = "<alto><Layout><Page ID=\"Page1\"/></Layout></alto>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAGE_2 = "<alto><Layout><Page ID=\"Page2\"/></Layout></alto>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PAGE_2_NEW = "<alto><Layout><Page ID=\"Page2\" HEIGHT=\"3300\"/></Layout></alto>".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFolder() throws Exception {
+        Path pageFolder = folder.newFolder("pages").toPath();
+        try (AltoOutput output = AltoOutput.toFolder(pageFolder, null)) {
+            writePage(output, "00000001", PAGE_1);
+            writePage(output, "00000002", PAGE_2);
+        }
+
+        assertEquals(2, pageFolder.toFile().list().length);
+        assertArrayEquals(PAGE_1, Files.readAllBytes(pageFolder.resolve("00000001.xml")));
+        assertArrayEquals(PAGE_2, Files.readAllBytes(pageFolder.resolve("00000002.xml")));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        Path gzipFolder = folder.newFolder("gzip").toPath();
+        try (ParallelIo io = new ParallelIo(2); AltoOutput output = AltoOutput.toFolder(gzipFolder, io, false, Compression.GZIP)) {
+            writePage(output, "00000001", PAGE_1);
+            writePage(output, "00000002", PAGE_2);
+        }
+
+        assertEquals(2, gzipFolder.toFile().list().length);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(gzipFolder.resolve("00000002.xml.gz")))) {
+            assertArrayEquals(PAGE_2, readAll(in));
+        }
+    }
+
+    @Test
+    public void testContainer() throws Exception {
+        Path zip = folder.getRoot().toPath().resolve("alto.zip");
+        try (AltoOutput output = AltoOutput.toContainer(zip, false, Compression.GZIP)) {
+            writePage(output, "00000001", PAGE_1);
+            writePage(output, "00000002", PAGE_2);
+            output.commit();
+        }
+
+        // the temporary file has replaced the container
+        assertEquals(1, folder.getRoot().list().length);
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(2, zipFile.size());
+            ZipEntry entry = zipFile.getEntry("00000002.xml");
+            assertNotNull(entry);
+            assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+            assertArrayEquals(PAGE_2, readEntry(zipFile, "00000002.xml"));
+        }
+    }
+
+    @Test
+    public void testContainerUpdatesSelectedPages() throws Exception {
+        Path zip = folder.getRoot().toPath().resolve("alto.zip");
+        writeContainer(zip);
+        try (AltoOutput output = AltoOutput.toContainer(zip, false, Compression.NONE)) {
+            writePage(output, "00000002", PAGE_2_NEW);
+            output.commit();
+        }
+
+        assertEquals(1, folder.getRoot().list().length);
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(2, zipFile.size());
+            assertEquals(ZipEntry.STORED, zipFile.getEntry("00000001.xml").getMethod());
+            assertArrayEquals(PAGE_1, readEntry(zipFile, "00000001.xml"));
+            assertArrayEquals(PAGE_2_NEW, readEntry(zipFile, "00000002.xml"));
+        }
+    }
+
+    @Test
+    public void testContainerWithoutCommitIsUnchanged() throws Exception {
+        Path zip = folder.getRoot().toPath().resolve("alto.zip");
+        writeContainer(zip);
+        try (AltoOutput output = AltoOutput.toContainer(zip, false, Compression.NONE)) {
+            writePage(output, "00000002", PAGE_2_NEW);
+        }
+
+        assertEquals(1, folder.getRoot().list().length);
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertArrayEquals(PAGE_2, readEntry(zipFile, "00000002.xml"));
+        }
+    }
+
+    @Test
+    public void testAbortedPageIsNotAdded() throws Exception {
+        Path zip = folder.getRoot().toPath().resolve("alto.zip");
+        writeContainer(zip);
+        try (AltoOutput output = AltoOutput.toContainer(zip, false, Compression.NONE)) {
+            writePage(output, "00000001", PAGE_2_NEW);
+            OutputStream page = output.newPageStream("00000002");
+            page.write(PAGE_2_NEW, 0, 10);
+            output.abortPage(page);
+            output.commit();
+        }
+
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertArrayEquals(PAGE_2_NEW, readEntry(zipFile, "00000001.xml"));
+            assertArrayEquals(PAGE_2, readEntry(zipFile, "00000002.xml"));
+        }
+    }
+
+    @Test
+    public void testContainerHasDefaultPermissions() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Assume.assumeTrue(Files.getFileStore(root).supportsFileAttributeView(PosixFileAttributeView.class));
+        Path zip = root.resolve("alto.zip");
+        writeContainer(zip);
+        Path plain = Files.write(root.resolve("plain.xml"), PAGE_1);
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(zip));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedCompression() {
+        Compression.fromString("zstd");
+    }
+
+    @Test
+    public void testCompressionFromString() {
+        assertEquals(Compression.NONE, Compression.fromString(null));
+        assertEquals(Compression.NONE, Compression.fromString(" "));
+        assertEquals(Compression.GZIP, Compression.fromString("gzip"));
+    }
+
+    private static void writeContainer(Path zip) throws IOException {
+        try (AltoOutput output = AltoOutput.toContainer(zip, false, Compression.NONE)) {
+            writePage(output, "00000001", PAGE_1);
+            writePage(output, "00000002", PAGE_2);
+            output.commit();
+        }
+    }
+
+    private static void writePage(AltoOutput output, String basename, byte[] content) throws IOException {
+        try (OutputStream out = output.newPageStream(basename)) {
+            out.write(content);
+        }
+    }
+
+    private static byte[] readEntry(ZipFile zipFile, String name) throws IOException {
+        try (InputStream in = zipFile.getInputStream(zipFile.getEntry(name))) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
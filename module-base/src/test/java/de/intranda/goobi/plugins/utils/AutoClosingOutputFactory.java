@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Result;
+
+/**
+ * Output factory whose writers end all open elements on close(), like Woodstox does by default. Used to test that the engines do not depend on
+ * the behaviour of the JDK writer.
+ */
+public class AutoClosingOutputFactory extends XMLOutputFactory {
+
+    private final XMLOutputFactory delegate = XMLOutputFactory.newDefaultFactory();
+
+    private static XMLStreamWriter autoClosing(XMLStreamWriter writer) {
+        int[] depth = new int[1];
+        return (XMLStreamWriter) Proxy.newProxyInstance(XMLStreamWriter.class.getClassLoader(), new Class<?>[] { XMLStreamWriter.class }, (proxy,
+                method, args) -> {
+            switch (method.getName()) {
+                case "writeStartElement":
+                    depth[0]++;
+                    break;
+                case "writeEndElement":
+                    depth[0]--;
+                    break;
+                case "close":
+                    for (; depth[0] > 0; depth[0]--) {
+                        writer.writeEndElement();
+                    }
+                    writer.flush();
+                    break;
+                default:
+                    break;
+            }
+            try {
+                return method.invoke(writer, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(Writer stream) throws XMLStreamException {
+        return autoClosing(delegate.createXMLStreamWriter(stream));
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(OutputStream stream) throws XMLStreamException {
+        return autoClosing(delegate.createXMLStreamWriter(stream));
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(OutputStream stream, String encoding) throws XMLStreamException {
+        return autoClosing(delegate.createXMLStreamWriter(stream, encoding));
+    }
+
+    @Override
+    public XMLStreamWriter createXMLStreamWriter(Result result) throws XMLStreamException {
+        return autoClosing(delegate.createXMLStreamWriter(result));
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(Result result) throws XMLStreamException {
+        return delegate.createXMLEventWriter(result);
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(OutputStream stream) throws XMLStreamException {
+        return delegate.createXMLEventWriter(stream);
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(OutputStream stream, String encoding) throws XMLStreamException {
+        return delegate.createXMLEventWriter(stream, encoding);
+    }
+
+    @Override
+    public XMLEventWriter createXMLEventWriter(Writer stream) throws XMLStreamException {
+        return delegate.createXMLEventWriter(stream);
+    }
+
+    @Override
+    public void setProperty(String name, Object value) {
+        delegate.setProperty(name, value);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return delegate.getProperty(name);
+    }
+
+    @Override
+    public boolean isPropertySupported(String name) {
+        return delegate.isPropertySupported(name);
+    }
+}
@@ -0,0 +1,109 @@
+package de.intranda.goobi.plugins.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelIoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBackgroundWrite() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("page.xml");
+        byte[] content = "<alto/>".getBytes(StandardCharsets.UTF_8);
+        try (ParallelIo io = new ParallelIo(4)) {
+            try (OutputStream out = io.newOutputStream(file)) {
+                out.write(content);
+            }
+            io.await();
+            assertArrayEquals(content, Files.readAllBytes(file));
+        }
+    }
+
+    @Test
+    public void testMove() throws Exception {
+        File source = folder.newFile("book.pdf");
+        Path target = folder.newFolder("pdf").toPath().resolve("book.pdf");
+        try (ParallelIo io = new ParallelIo(4)) {
+            assertEquals(target, io.get(io.move(source.toPath(), target)));
+        }
+        assertFalse(source.exists());
+        assertTrue(Files.exists(target));
+    }
+
+    @Test
+    public void testErrorIsReportedOnClose() throws Exception {
+        Path missing = folder.getRoot().toPath().resolve("missing.pdf");
+        try (ParallelIo io = new ParallelIo(4)) {
+            io.move(missing, folder.getRoot().toPath().resolve("target.pdf"));
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        fail("move of a missing file did not fail");
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maximum = new AtomicInteger();
+        try (ParallelIo io = new ParallelIo(3)) {
+            for (int i = 0; i < 30; i++) {
+                io.submit(() -> {
+                    maximum.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return null;
+                });
+            }
+        }
+        assertTrue(maximum.get() <= 3);
+        assertTrue(maximum.get() > 1);
+    }
+
+    @Test
+    public void testRuntimeExceptionDoesNotStopWaiting() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("page.xml");
+        IOException error = null;
+        try (ParallelIo io = new ParallelIo(2)) {
+            io.submit(() -> {
+                throw new IllegalStateException("unreadable image");
+            });
+            io.submit(() -> {
+                Thread.sleep(50);
+                return Files.write(file, new byte[1]);
+            });
+        } catch (IOException e) {
+            error = e;
+        }
+        assertNotNull(error);
+        assertTrue(error.getCause() instanceof IllegalStateException);
+        assertTrue(Files.exists(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testExceptionIsUnwrapped() throws Exception {
+        try (ParallelIo io = new ParallelIo(1)) {
+            io.get(io.submit(() -> {
+                throw new IOException("failed");
+            }));
+        }
+    }
+}
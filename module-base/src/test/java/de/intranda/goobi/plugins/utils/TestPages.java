@@ -0,0 +1,20 @@
+package de.intranda.goobi.plugins.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Image information of the pages in the ALTO test files.
+ */
+class TestPages {
+
+    private TestPages() {
+    }
+
+    static List<ImageInformation> book() {
+        List<ImageInformation> pages = new ArrayList<>();
+        pages.add(ImageInformation.create("00000001", 2480, 3280, 2500, 3300, 0.012));
+        pages.add(ImageInformation.create("00000002", 2470, 3290, 2500, 3300, -0.008));
+        return pages;
+    }
+}
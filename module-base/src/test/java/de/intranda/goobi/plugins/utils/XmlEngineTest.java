@@ -0,0 +1,45 @@
+package de.intranda.goobi.plugins.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+
+import org.junit.Test;
+
+public class XmlEngineTest {
+
+    @Test
+    public void testEnginesAreCached() {
+        assertTrue(XmlEngine.getDefault() == XmlEngine.getDefault());
+
+        Map<String, String> properties = Collections.singletonMap(XMLInputFactory.IS_VALIDATING, "false");
+        XmlEngine engine = XmlEngine.getInstance(null, null, true, properties, Collections.emptyMap());
+        assertTrue(engine == XmlEngine.getInstance(null, null, true, properties, Collections.emptyMap()));
+        assertTrue(engine != XmlEngine.getDefault());
+    }
+
+    @Test
+    public void testConfiguration() {
+        XmlEngine engine = XmlEngine.getInstance(null, null, true, Collections.emptyMap(), Collections.emptyMap());
+        assertEquals(Boolean.TRUE, engine.getInputFactory().getProperty(XMLInputFactory.IS_COALESCING));
+        assertEquals(Boolean.TRUE, engine.getInputFactory().getProperty(XMLInputFactory.IS_NAMESPACE_AWARE));
+    }
+
+    @Test
+    public void testUnknownFactoryFallsBackToDefault() {
+        XmlEngine engine = XmlEngine.getInstance("com.example.MissingInputFactory", "com.example.MissingOutputFactory", false, Collections
+                .emptyMap(), Collections.emptyMap());
+        assertEquals(XMLInputFactory.newFactory().getClass(), engine.getInputFactory().getClass());
+    }
+
+    @Test
+    public void testRejectedPropertyValueIsIgnored() {
+        Map<String, String> properties = Collections.singletonMap(XMLInputFactory.RESOLVER, "none");
+        XmlEngine engine = XmlEngine.getInstance(null, null, false, properties, Collections.emptyMap());
+        assertEquals(Boolean.TRUE, engine.getInputFactory().getProperty(XMLInputFactory.IS_NAMESPACE_AWARE));
+    }
+}